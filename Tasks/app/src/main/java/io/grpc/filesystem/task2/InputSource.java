@@ -0,0 +1,106 @@
+/*
+ * input of a job, given as a single file, a directory or a glob such as input/*.txt
+ * Directories and globs are enumerated lazily with a directory stream, so the number of input files
+ * does not change how much memory it takes to walk them
+ */
+
+package io.grpc.filesystem.task2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class InputSource {
+
+    private final Path dir;
+    private final String glob;
+    private final File singleFile;
+
+    private InputSource(Path dir, String glob, File singleFile) {
+        this.dir = dir;
+        this.glob = glob;
+        this.singleFile = singleFile;
+    }
+
+    /**
+     * Creates the input source for the given path.
+     * A directory stands for all regular files directly inside it, and a path whose last element
+     * contains one of *?[{ is treated as a glob over the files of its parent directory, unless a file
+     * or directory with exactly that name exists. The glob is split off before the path is parsed,
+     * since these characters are not allowed in a Windows path.
+     *
+     * @param inputPath The path to an input file, a directory or a glob.
+     * @return The input source.
+     */
+    public static InputSource of(String inputPath) {
+        int separator = Math.max(inputPath.lastIndexOf('/'), inputPath.lastIndexOf(File.separatorChar));
+        String name = inputPath.substring(separator + 1);
+        if (name.matches(".*[*?\\[{].*") && !exists(inputPath)) {
+            Path parent = separator >= 0 ? Paths.get(inputPath.substring(0, separator + 1)) : Paths.get(".");
+            return new InputSource(parent, name, null);
+        }
+        Path path = Paths.get(inputPath);
+        if (Files.isDirectory(path)) {
+            return new InputSource(path, "*", null);
+        }
+        return new InputSource(null, null, path.toFile());
+    }
+
+    private static boolean exists(String path) {
+        try {
+            return Files.exists(Paths.get(path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the directory the input lives in, i.e. the parent of a single input file,
+     * or the directory that is enumerated.
+     *
+     * @return The base directory of the input.
+     */
+    public File getBaseDir() {
+        if (singleFile != null) {
+            return singleFile.getAbsoluteFile().getParentFile();
+        }
+        return dir.toAbsolutePath().toFile();
+    }
+
+    /**
+     * Opens a lazy stream over the input files. Every call enumerates the input again, and the stream
+     * holds the directory handle until it is closed, so it belongs in a try-with-resources block.
+     * Errors while reading the directory are thrown as DirectoryIteratorException.
+     *
+     * @return A stream of the regular input files.
+     * @throws IOException If the input directory cannot be opened.
+     */
+    public Stream<File> files() throws IOException {
+        if (singleFile != null) {
+            return Stream.of(singleFile);
+        }
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob);
+        return StreamSupport.stream(stream.spliterator(), false)
+                .filter(Files::isRegularFile)
+                .map(Path::toFile)
+                .onClose(() -> {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Override
+    public String toString() {
+        return singleFile != null ? singleFile.getPath() : dir + File.separator + glob;
+    }
+}
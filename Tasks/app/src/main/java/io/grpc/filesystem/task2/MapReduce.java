@@ -1,5 +1,5 @@
 /*
- * the MapReduce functionality implemented in this program takes a single large text file to map i.e. split it into small chunks
+ * the MapReduce functionality implemented in this program takes a text file, a directory or a glob of text files to map i.e. split them into small chunks
  * Then, all words are assigned an initial count of one
  * Finally, it reduces by counting the unique words
  */
@@ -8,51 +8,207 @@ package io.grpc.filesystem.task2;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class MapReduce {
 
-    private static final int CHUNK_SIZE = 500;
+    /**
+     * Splits the input into chunks sized for the local machine and stores them in a new temporary
+     * directory of their own.
+     *
+     * @param inputPath The path to the input file, directory or glob to be split.
+     * @return The path of the directory where chunks are stored.
+     * @throws IOException If an error occurs during file I/O.
+     */
+    public static String makeChunks(String inputPath) throws IOException {
+        InputSource input = InputSource.of(inputPath);
+        return makeChunks(input, SplitPlanner.forLocalCores(input).plan(input), createWorkDir(), chunkFile -> { });
+    }
 
     /**
-     * Splits the input file into smaller chunks and stores them in a temporary directory.
+     * Creates a new, empty work directory for the chunks and map results of one job. Every job gets
+     * its own, so jobs never share or clean up each other's files, and the input may be read-only.
      *
-     * @param inputFilePath The path to the input file to be split.
+     * @return The work directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    public static File createWorkDir() throws IOException {
+        return Files.createTempDirectory("mapreduce-").toFile();
+    }
+
+    /**
+     * Splits the input into chunks of the planned size and stores them in the given work directory,
+     * which belongs to this job alone. The input is chunked by one thread per local core, and
+     * every chunk is handed to onChunk as soon as it has been written, so map tasks can start while
+     * the rest of the input is still being listed and chunked.
+     *
+     * @param input   The input to be split.
+     * @param plan    The split plan for this input.
+     * @param workDir The directory of this job the chunks are written to, created if missing.
+     * @param onChunk Called with each finished chunk file, possibly from several threads at once.
      * @return The path of the directory where chunks are stored.
      * @throws IOException If an error occurs during file I/O.
      */
-    public static String makeChunks(String inputFilePath) throws IOException {
-        int count = 1;
-        File inputFile = new File(inputFilePath);
-        File chunkDir = new File(inputFile.getParent() + "/temp");
+    public static String makeChunks(InputSource input, SplitPlan plan, File workDir, Consumer<File> onChunk)
+            throws IOException {
+        try (Stream<File> files = input.files()) {
+            return makeChunks(files.iterator(), workDir, plan, Runtime.getRuntime().availableProcessors(), onChunk);
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Walks the input files once and hands them out in batches to ingestThreads threads.
+     * Without combining every file is a batch of its own, otherwise small files are collected as long
+     * as they fit into one split. The hand-off queue is bounded, so when the threads fall behind the walking
+     * thread chunks a batch itself instead of reading further ahead. The first error of any ingestion
+     * thread, including one thrown by onChunk, stops the walk and is rethrown.
+     */
+    static String makeChunks(Iterator<File> inputFiles, File chunkDir, SplitPlan plan, int ingestThreads,
+                             Consumer<File> onChunk) throws IOException {
         if (!chunkDir.exists()) {
             chunkDir.mkdirs();
         }
+        ExecutorService ingestPool = ingestThreads > 1
+                ? new ThreadPoolExecutor(ingestThreads, ingestThreads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(ingestThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy())
+                : null;
+        AtomicInteger count = new AtomicInteger(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            List<File> batch = new ArrayList<>();
+            long batchBytes = 0;
+            while (inputFiles.hasNext() && failure.get() == null) {
+                File inputFile = inputFiles.next();
+                long length = inputFile.length();
+                if (!batch.isEmpty() && (!plan.isCombineSmallFiles() || batchBytes + length > plan.getSplitSize()
+                        || batch.size() >= SplitPlanner.MAX_FILES_PER_SPLIT)) {
+                    ingest(ingestPool, batch, chunkDir, plan, count, onChunk, failure);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(inputFile);
+                batchBytes += length;
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                ingest(ingestPool, batch, chunkDir, plan, count, onChunk, failure);
+            }
+        } finally {
+            if (ingestPool != null) {
+                ingestPool.shutdown();
+                try {
+                    ingestPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while chunking " + chunkDir);
+                }
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+        return chunkDir.getPath();
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(inputFilePath))) {
-            String line = br.readLine();
+    /**
+     * Chunks one batch of input files, on the ingestion pool if there is one. The first error is kept
+     * in failure.
+     */
+    private static void ingest(ExecutorService ingestPool, List<File> batch, File chunkDir, SplitPlan plan,
+                               AtomicInteger count, Consumer<File> onChunk, AtomicReference<Exception> failure) {
+        Runnable task = () -> {
+            try {
+                writeChunks(batch, chunkDir, plan, count, onChunk);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (UncheckedIOException e) {
+                failure.compareAndSet(null, e.getCause());
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        };
+        if (ingestPool != null) {
+            ingestPool.execute(task);
+        } else {
+            task.run();
+        }
+    }
 
-            while (line != null) {
-                File chunkFile = new File(chunkDir, "chunk" + String.format("%03d", count++) + ".txt");
-                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(chunkFile))) {
-                    int fileSize = 0;
-                    while (line != null) {
+    /**
+     * Writes the lines of the given files into chunks of at most plan.getSplitSize() bytes.
+     *
+     * @param inputFiles The files to be split.
+     * @param chunkDir   The directory the chunks are written to.
+     * @param plan       The split plan.
+     * @param count      The number of the next chunk, shared between ingestion threads.
+     * @param onChunk    Called with each chunk file once it is complete.
+     * @throws IOException If an error occurs during file I/O.
+     */
+    private static void writeChunks(List<File> inputFiles, File chunkDir, SplitPlan plan, AtomicInteger count,
+                                    Consumer<File> onChunk) throws IOException {
+        long chunkSize = plan.getSplitSize();
+        File chunkFile = null;
+        OutputStream out = null;
+        long fileSize = 0;
+        try {
+            for (File inputFile : inputFiles) {
+                // Without combining, every input file starts a fresh chunk
+                if (!plan.isCombineSmallFiles() && out != null) {
+                    out.close();
+                    out = null;
+                    onChunk.accept(chunkFile);
+                }
+                try (BufferedReader br = new BufferedReader(new FileReader(inputFile))) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
                         byte[] bytes = (line + System.lineSeparator()).getBytes(Charset.defaultCharset());
-                        if (bytes.length > CHUNK_SIZE) {
+                        if (bytes.length > chunkSize) {
                             System.err.println("Skipping line exceeding chunk size: " + line);
-                            line = br.readLine();
                             continue;
                         }
-                        if (fileSize + bytes.length > CHUNK_SIZE)
-                            break;
+                        if (out == null || fileSize + bytes.length > chunkSize) {
+                            if (out != null) {
+                                out.close();
+                                out = null;
+                                onChunk.accept(chunkFile);
+                            }
+                            chunkFile = new File(chunkDir, "chunk" + String.format("%03d", count.getAndIncrement()) + ".txt");
+                            out = new BufferedOutputStream(new FileOutputStream(chunkFile));
+                            fileSize = 0;
+                        }
                         out.write(bytes);
                         fileSize += bytes.length;
-                        line = br.readLine();
                     }
                 }
             }
+            if (out != null) {
+                out.close();
+                out = null;
+                onChunk.accept(chunkFile);
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
         }
-        return chunkDir.getPath();
     }
 
     /**
@@ -208,28 +364,62 @@ public class MapReduce {
         }
     }
 
-    public static void main(String[] args) throws IOException { // update the main function if required
+    public static void main(String[] args) throws IOException, InterruptedException { // update the main function if required
         if (args.length < 2) {
-            System.out.println("Usage: <inputFilePath> <outputFilePath>");
+            System.out.println("Usage: <inputPath> <outputFilePath>");
             return;
         }
-        String inputFilePath = args[0];
+        String inputPath = args[0];
         String outputFilePath = args[1];
 
-        // Split input file into chunks
-        String chunkDirPath = makeChunks(inputFilePath);
+        // Plan the splits over the input file, directory or glob
+        long start = System.nanoTime();
+        InputSource input = InputSource.of(inputPath);
+        SplitPlan plan = SplitPlanner.forLocalCores(input).plan(input);
+        System.out.println("Split plan: " + plan);
+        File workDir = createWorkDir();
+        System.out.println("Work directory: " + workDir);
 
-        // Map phase: Process each chunk
-        File chunkDir = new File(chunkDirPath);
-        File[] chunkFiles = chunkDir.listFiles((dir, name) -> name.startsWith("chunk"));
-
-        if (chunkFiles != null) {
-            for (File chunkFile : chunkFiles) {
-                map(chunkFile.getPath());
-            }
+        // Chunk and map phase: each chunk is mapped as soon as it has been written. The map queue is
+        // bounded, so when the mappers fall behind the ingestion thread maps the chunk itself.
+        int workers = plan.getWorkers();
+        ThreadPoolExecutor mapPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicReference<IOException> mapFailure = new AtomicReference<>();
+        AtomicInteger chunks = new AtomicInteger();
+        AtomicLong firstMap = new AtomicLong();
+        String chunkDirPath;
+        long chunked;
+        try {
+            chunkDirPath = makeChunks(input, plan, workDir, chunkFile -> {
+                firstMap.compareAndSet(0, System.nanoTime());
+                chunks.incrementAndGet();
+                mapPool.execute(() -> {
+                    try {
+                        map(chunkFile.getPath());
+                    } catch (IOException e) {
+                        mapFailure.compareAndSet(null, e);
+                    }
+                });
+            });
+            chunked = System.nanoTime();
+        } finally {
+            mapPool.shutdown();
+            mapPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
         }
+        if (mapFailure.get() != null) {
+            throw new IOException("Map task failed", mapFailure.get());
+        }
+        long mapped = System.nanoTime();
+        System.out.println("Chunks written: " + chunks.get());
 
         // Reduce phase: Aggregate map results
         reduce(chunkDirPath, outputFilePath);
+        long reduced = System.nanoTime();
+
+        long firstMapAt = firstMap.get() != 0 ? firstMap.get() : chunked;
+        System.out.println("Timings: first map after " + (firstMapAt - start) / 1_000_000 + " ms, chunk "
+                + (chunked - start) / 1_000_000 + " ms, map done after " + (mapped - start) / 1_000_000
+                + " ms over " + chunks.get() + " chunk(s), reduce " + (reduced - mapped) / 1_000_000 + " ms");
     }
 }
\ No newline at end of file
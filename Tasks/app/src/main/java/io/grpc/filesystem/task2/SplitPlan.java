@@ -0,0 +1,76 @@
+/*
+ * split plan object
+ * describes how the input of a job is cut into chunks for the map phase
+ */
+
+package io.grpc.filesystem.task2;
+
+public class SplitPlan {
+    private final long totalBytes;
+    private final int fileCount;
+    private final int workers;
+    private final long taskOverheadNanos;
+    private final long mapBytesPerSecond;
+    private final long splitSize;
+    private final boolean combineSmallFiles;
+    private final boolean complete;
+
+    public SplitPlan(long totalBytes, int fileCount, int workers, long taskOverheadNanos, long mapBytesPerSecond,
+                     long splitSize, boolean combineSmallFiles, boolean complete) {
+        this.totalBytes = totalBytes;
+        this.fileCount = fileCount;
+        this.workers = workers;
+        this.taskOverheadNanos = taskOverheadNanos;
+        this.mapBytesPerSecond = mapBytesPerSecond;
+        this.splitSize = splitSize;
+        this.combineSmallFiles = combineSmallFiles;
+        this.complete = complete;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getTaskOverheadNanos() {
+        return taskOverheadNanos;
+    }
+
+    public long getMapBytesPerSecond() {
+        return mapBytesPerSecond;
+    }
+
+    public long getSplitSize() {
+        return splitSize;
+    }
+
+    public boolean isCombineSmallFiles() {
+        return combineSmallFiles;
+    }
+
+    /**
+     * Whether the plan saw every input file. If not, it was made from a sample of the input,
+     * and the size and file count are lower bounds.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        String atLeast = complete ? "" : "at least ";
+        return "SplitPlan{input=" + atLeast + totalBytes + " bytes in " + atLeast + fileCount + " file(s)"
+                + ", workers=" + workers
+                + ", taskOverhead=" + (taskOverheadNanos / 1000) + " us"
+                + ", mapRate=" + (mapBytesPerSecond / 1000) + " KB/s"
+                + ", splitSize=" + splitSize + " bytes"
+                + ", combineSmallFiles=" + combineSmallFiles + "}";
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * the split planner decides how large the chunks of a job should be
+ * It looks at the size of the input, the number of workers that can run map tasks in parallel,
+ * the fixed cost of a single map task and how fast map gets through the input, and picks a split size
+ * that keeps all workers busy without drowning the useful work in per-task overhead
+ */
+
+package io.grpc.filesystem.task2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+public class SplitPlanner {
+
+    // Lower bound, the size the chunks had before the planner existed
+    static final long MIN_SPLIT_SIZE = 500;
+    // Upper bound, one HDFS block
+    static final long MAX_SPLIT_SIZE = 64L * 1024 * 1024;
+    // More splits than workers so that a slow split does not leave the others idle
+    static final int SPLITS_PER_WORKER = 4;
+    // Share of a task's run time we are willing to spend on its fixed overhead
+    static final double MAX_OVERHEAD_RATIO = 0.05;
+    // Bytes of the real input mapped to measure the map throughput
+    static final long MAP_SAMPLE_BYTES = 256L * 1024;
+    // Files looked at to plan a directory input, so the first map does not wait for a full listing
+    static final int SAMPLE_FILES = 1000;
+    // Upper bound on the number of small files combined into one split
+    static final int MAX_FILES_PER_SPLIT = 1000;
+
+    private static final int OVERHEAD_SAMPLES = 5;
+    private static final int THROUGHPUT_SAMPLES = 2;
+
+    private final int workers;
+    private final long taskOverheadNanos;
+    private final long mapBytesPerSecond;
+    private final boolean combineSmallFiles;
+    private final int sampleFiles;
+
+    /**
+     * Creates a planner for the given environment.
+     *
+     * @param workers           The number of map tasks that can run at the same time.
+     * @param taskOverheadNanos The fixed cost of starting a single map task, in nanoseconds.
+     * @param mapBytesPerSecond The rate at which a single map task gets through its chunk.
+     * @param combineSmallFiles Whether several small input files may share one split.
+     */
+    public SplitPlanner(int workers, long taskOverheadNanos, long mapBytesPerSecond, boolean combineSmallFiles) {
+        this(workers, taskOverheadNanos, mapBytesPerSecond, combineSmallFiles, SAMPLE_FILES);
+    }
+
+    SplitPlanner(int workers, long taskOverheadNanos, long mapBytesPerSecond, boolean combineSmallFiles,
+                 int sampleFiles) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1: " + workers);
+        }
+        this.workers = workers;
+        this.taskOverheadNanos = Math.max(0, taskOverheadNanos);
+        this.mapBytesPerSecond = Math.max(0, mapBytesPerSecond);
+        this.combineSmallFiles = combineSmallFiles;
+        this.sampleFiles = sampleFiles;
+    }
+
+    /**
+     * Creates a planner for the given number of workers, using the local map task overhead and the
+     * map throughput measured on a sample of the input.
+     *
+     * @param workers The number of map tasks that can run at the same time.
+     * @param input   The input of the job, sampled to measure the map throughput.
+     * @return A planner that combines small input files.
+     * @throws IOException If the input cannot be read or the scratch files cannot be written.
+     */
+    public static SplitPlanner forWorkers(int workers, InputSource input) throws IOException {
+        long taskOverheadNanos = measureTaskOverheadNanos();
+        return new SplitPlanner(workers, taskOverheadNanos, measureMapBytesPerSecond(input, taskOverheadNanos), true);
+    }
+
+    /**
+     * Creates a planner with one worker per available core.
+     *
+     * @param input The input of the job, sampled to measure the map throughput.
+     * @return A planner sized for the local machine.
+     * @throws IOException If the input cannot be read or the scratch files cannot be written.
+     */
+    public static SplitPlanner forLocalCores(InputSource input) throws IOException {
+        return forWorkers(Runtime.getRuntime().availableProcessors(), input);
+    }
+
+    /**
+     * Measures the fixed cost of a map task by mapping an empty chunk a few times.
+     *
+     * @return The fastest observed run in nanoseconds.
+     * @throws IOException If an error occurs during file I/O.
+     */
+    public static long measureTaskOverheadNanos() throws IOException {
+        Path scratchDir = Files.createTempDirectory("split-planner");
+        Path emptyChunk = Files.createFile(scratchDir.resolve("chunk000.txt"));
+        try {
+            return timeMap(emptyChunk, OVERHEAD_SAMPLES);
+        } finally {
+            deleteScratch(scratchDir, emptyChunk);
+        }
+    }
+
+    /**
+     * Measures how fast map gets through the given input by copying up to MAP_SAMPLE_BYTES of its
+     * first lines into a scratch chunk and mapping it. The task overhead is taken off the run time,
+     * so that the rate only covers the work that grows with the size of a chunk.
+     *
+     * @param input             The input of the job.
+     * @param taskOverheadNanos The fixed cost of a map task, as measured by measureTaskOverheadNanos.
+     * @return The map throughput in bytes per second, or 0 if the input is empty.
+     * @throws IOException If an error occurs during file I/O.
+     */
+    public static long measureMapBytesPerSecond(InputSource input, long taskOverheadNanos) throws IOException {
+        Path scratchDir = Files.createTempDirectory("split-planner");
+        Path sampleChunk = scratchDir.resolve("chunk000.txt");
+        try {
+            long sampleBytes = writeSample(input, sampleChunk);
+            if (sampleBytes == 0) {
+                return 0;
+            }
+            long nanos = Math.max(1, timeMap(sampleChunk, THROUGHPUT_SAMPLES) - taskOverheadNanos);
+            return (long) (sampleBytes * 1e9 / nanos);
+        } finally {
+            deleteScratch(scratchDir, sampleChunk);
+        }
+    }
+
+    private static long writeSample(InputSource input, Path sampleChunk) throws IOException {
+        long sampleBytes = 0;
+        try (Stream<File> files = input.files();
+             BufferedWriter bw = Files.newBufferedWriter(sampleChunk, Charset.defaultCharset())) {
+            Iterator<File> inputFiles = files.iterator();
+            while (sampleBytes < MAP_SAMPLE_BYTES && inputFiles.hasNext()) {
+                try (BufferedReader br = new BufferedReader(new FileReader(inputFiles.next()))) {
+                    String line;
+                    while (sampleBytes < MAP_SAMPLE_BYTES && (line = br.readLine()) != null) {
+                        bw.write(line);
+                        bw.newLine();
+                        sampleBytes += (line + System.lineSeparator()).getBytes(Charset.defaultCharset()).length;
+                    }
+                }
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        return sampleBytes;
+    }
+
+    private static long timeMap(Path chunk, int runs) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            MapReduce.map(chunk.toString());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void deleteScratch(Path scratchDir, Path chunk) throws IOException {
+        Files.deleteIfExists(scratchDir.resolve("map-" + chunk.getFileName()));
+        Files.deleteIfExists(chunk);
+        Files.deleteIfExists(scratchDir);
+    }
+
+    /**
+     * Plans the splits for the given input.
+     *
+     * @param input The input of the job.
+     * @return The split plan.
+     * @throws IOException If the input cannot be listed.
+     */
+    public SplitPlan plan(InputSource input) throws IOException {
+        try (Stream<File> files = input.files()) {
+            return plan(files.iterator());
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Plans the splits from at most sampleFiles input files, so that planning takes the same time
+     * however many files there are. If there are more, the plan is marked incomplete: its size and
+     * file count are lower bounds, and the split size is only held up by the task overhead.
+     * The plan does not predict a number of chunks, since line boundaries and the batching of small
+     * files decide that while the input is chunked.
+     *
+     * @param files The files that make up the input of the job.
+     * @return The split plan.
+     */
+    SplitPlan plan(Iterator<File> files) {
+        long totalBytes = 0;
+        int fileCount = 0;
+        while (fileCount < sampleFiles && files.hasNext()) {
+            totalBytes += files.next().length();
+            fileCount++;
+        }
+        boolean complete = !files.hasNext();
+        return new SplitPlan(totalBytes, fileCount, workers, taskOverheadNanos, mapBytesPerSecond,
+                splitSize(totalBytes), combineSmallFiles, complete);
+    }
+
+    /**
+     * Picks the split size for an input of the given size.
+     * A split has to be large enough that the task overhead stays below MAX_OVERHEAD_RATIO,
+     * and should otherwise be small enough to give every worker SPLITS_PER_WORKER splits.
+     *
+     * @param totalBytes The total size of the input.
+     * @return The split size in bytes.
+     */
+    long splitSize(long totalBytes) {
+        long byParallelism = ceilDiv(totalBytes, (long) workers * SPLITS_PER_WORKER);
+        long byOverhead = (long) (taskOverheadNanos / 1e9 * mapBytesPerSecond / MAX_OVERHEAD_RATIO);
+        long size = Math.max(byParallelism, byOverhead);
+        return Math.min(MAX_SPLIT_SIZE, Math.max(MIN_SPLIT_SIZE, size));
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -11,50 +11,56 @@ import com.task3.proto.ReduceInput;
 import com.task3.proto.ReduceOutput;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.filesystem.task2.InputSource;
 import io.grpc.filesystem.task2.MapReduce;
+import io.grpc.filesystem.task2.SplitPlan;
+import io.grpc.filesystem.task2.SplitPlanner;
 import io.grpc.stub.StreamObserver;
 
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MrClient {
-    Map<String, Integer> jobStatus = new HashMap<>();
+    Map<String, Integer> jobStatus = new ConcurrentHashMap<>();
+    AtomicLong firstMapRequest = new AtomicLong();
 
     public static void main(String[] args) throws Exception {
         if (args.length < 5) {
-            System.err.println("Usage: MrClient <ip> <mapPort> <reducePort> <inputFilePath> <outputFilePath>");
+            System.err.println("Usage: MrClient <ip> <mapPort> <reducePort> <inputPath> <outputFilePath> [mapWorkers]");
             return;
         }
         String ip = args[0];
         Integer mapPort = Integer.parseInt(args[1]);
         Integer reducePort = Integer.parseInt(args[2]);
-        String inputFilePath = args[3];
+        String inputPath = args[3];
         String outputFilePath = args[4];
+        // Number of map workers registered behind mapPort, one map server by default
+        int mapWorkers = args.length > 5 ? Integer.parseInt(args[5]) : 1;
 
         MrClient client = new MrClient();
 
-        // 1. Create chunks from the input file
-        String chunkPath = MapReduce.makeChunks(inputFilePath);
-        File dir = new File(chunkPath);
-        File[] directoryListing = dir.listFiles();
-        if (directoryListing != null) {
-            for (File f : directoryListing) {
-                if (f.isFile() && f.getName().startsWith("chunk")) {
-                    client.jobStatus.put(f.getPath(), 1); // 1 = pending
-                }
-            }
-        } else {
-            System.err.println("Could not list files in chunk directory: " + chunkPath);
-            return;
-        }
-
-        // 2. Request Map tasks - KORRIGIERTER AUFRUF
-        client.requestMap(ip, mapPort, inputFilePath, outputFilePath);
+        // 1. Plan the splits over the input file, directory or glob
+        long start = System.nanoTime();
+        InputSource input = InputSource.of(inputPath);
+        SplitPlan plan = SplitPlanner.forWorkers(mapWorkers, input).plan(input);
+        System.out.println("Split plan: " + plan);
+        File workDir = MapReduce.createWorkDir();
+        System.out.println("Work directory: " + workDir);
+
+        // 2. Create chunks and request a Map task for each chunk as soon as it is written
+        String chunkPath = client.requestMap(ip, mapPort, input, plan, workDir, outputFilePath);
+        long mapped = System.nanoTime();
+        System.out.println("Chunks written: " + client.jobStatus.size());
+        long firstMap = client.firstMapRequest.get() != 0 ? client.firstMapRequest.get() : mapped;
+        System.out.println("Timings: first map request after " + (firstMap - start) / 1_000_000 + " ms, map done after "
+                + (mapped - start) / 1_000_000 + " ms over " + client.jobStatus.size() + " chunk(s)");
 
         // 3. Check if all map tasks were successful (status code 2)
         Set<Integer> values = new HashSet<>(client.jobStatus.values());
@@ -72,8 +78,15 @@ public class MrClient {
         }
     }
 
-    // KORRIGIERTE METHODENSIGNATUR
-    public void requestMap(String ip, Integer portNumber, String inputFilePath, String outputFilePath) throws InterruptedException {
+    /**
+     * Chunks the input and streams one Map request per chunk to the map server while the rest of the
+     * input is still being chunked. The chunks are written to workDir, which the map and reduce servers
+     * have to be able to read.
+     *
+     * @return The path of the directory where chunks are stored.
+     */
+    public String requestMap(String ip, Integer portNumber, InputSource input, SplitPlan plan, File workDir,
+                             String outputFilePath) throws IOException, InterruptedException {
         final CountDownLatch finishLatch = new CountDownLatch(1);
         ManagedChannel channel = ManagedChannelBuilder.forAddress(ip, portNumber).usePlaintext().build();
         AssignJobGrpc.AssignJobStub asyncStub = AssignJobGrpc.newStub(channel);
@@ -100,16 +113,21 @@ public class MrClient {
         };
 
         StreamObserver<MapInput> requestObserver = asyncStub.map(responseObserver);
+        String chunkPath;
         try {
-            // We iterate through the chunk paths stored in the jobStatus map
-            for (String chunkFilePath : jobStatus.keySet()) {
+            chunkPath = MapReduce.makeChunks(input, plan, workDir, chunkFile -> {
+                firstMapRequest.compareAndSet(0, System.nanoTime());
+                jobStatus.put(chunkFile.getPath(), 1); // 1 = pending
                 MapInput request = MapInput.newBuilder()
-                        .setInputfilepath(chunkFilePath) // Send the path to the chunk
+                        .setInputfilepath(chunkFile.getPath()) // Send the path to the chunk
                         .setOutputfilepath(outputFilePath)
                         .build();
-                requestObserver.onNext(request);
-            }
-        } catch (RuntimeException e) {
+                // Chunks are written by several threads, but a request stream is not thread-safe
+                synchronized (requestObserver) {
+                    requestObserver.onNext(request);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
             requestObserver.onError(e);
             throw e;
         }
@@ -120,6 +138,7 @@ public class MrClient {
         finishLatch.await(1, TimeUnit.MINUTES);
 
         channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        return chunkPath;
     }
 
     public int requestReduce(String ip, Integer portNumber, String inputFilePath, String outputFilePath) throws InterruptedException {
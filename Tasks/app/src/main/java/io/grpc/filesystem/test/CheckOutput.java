@@ -1,6 +1,9 @@
 /*
- * Use this to check your output against the expected output file (output/output.txt).
- * Both tasks are expected to have the same word count and order.
+ * Use this to check your output against the expected output file (output/output-task2.txt by default).
+ * Both tasks are expected to have the same word count and order, so by default the files are compared
+ * entry by entry in order, realigning after a missing, extra or moved line. With --unordered only the
+ * word counts have to match.
+ * Both files are streamed once, and the first differences are printed with both counts.
  */
 
 package io.grpc.filesystem.test;
@@ -8,43 +11,594 @@ package io.grpc.filesystem.test;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CheckOutput {
-    public static void main(String[] args) throws IOException {
-        String outputFilePath = args[0];
-        String l1;
-        String l2;
 
-        // Read and map the original file
-        Map<String, Integer> original = new HashMap<>();
-        BufferedReader bf1 = new BufferedReader(new FileReader("output/output-task2.txt"));
-        while ((l1 = bf1.readLine()) != null) {
-            if (!l1.isEmpty()) {
-                String[] subStrings = l1.split(":");
-                original.put(subStrings[0], Integer.parseInt(subStrings[1]));
-            }
-        }
+    private static final String USAGE = "Usage: <outputFilePath> [expectedFilePath] [--unordered] [--max-diffs N]";
+    private static final String DEFAULT_EXPECTED_FILE = "output/output-task2.txt";
+    private static final int DEFAULT_MAX_DIFFS = 10;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    // Entries handed from a reader to a partition at once
+    private static final int BATCH_SIZE = 1024;
+    // Batches that may wait for a partition before the readers block
+    private static final int QUEUE_CAPACITY = 16;
+    // Entries searched ahead in each file to realign an ordered comparison
+    private static final int LOOKAHEAD = 1000;
 
-        // Read and map the file that needs to be compared
-        Map<String, Integer> copy = new HashMap<>();
-        BufferedReader bf2 = new BufferedReader(new FileReader(outputFilePath));
-        while ((l2 = bf2.readLine()) != null) {
-            if (!l2.isEmpty()) {
-                String[] subStrings = l2.split(":");
-                copy.put(subStrings[0], Integer.parseInt(subStrings[1]));
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean ordered = true;
+        int maxDiffs = DEFAULT_MAX_DIFFS;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--unordered")) {
+                ordered = false;
+            } else if (args[i].equals("--max-diffs")) {
+                maxDiffs = i + 1 < args.length && args[i + 1].matches("\\d{1,9}") ? Integer.parseInt(args[++i]) : -1;
+                if (maxDiffs < 0) {
+                    System.out.println(USAGE);
+                    return;
+                }
+            } else {
+                paths.add(args[i]);
             }
         }
+        if (paths.isEmpty() || paths.size() > 2) {
+            System.out.println(USAGE);
+            return;
+        }
+        String outputFilePath = paths.get(0);
+        String expectedFilePath = paths.size() == 2 ? paths.get(1) : DEFAULT_EXPECTED_FILE;
+
+        Result result = ordered
+                ? compareOrdered(expectedFilePath, outputFilePath, maxDiffs)
+                : compareUnordered(expectedFilePath, outputFilePath, maxDiffs,
+                        Runtime.getRuntime().availableProcessors());
 
         // Print the verdict
-        if (original.equals(copy)) {
+        if (result.isSame()) {
             System.out.println("Both files are the same!");
         } else {
-            System.out.println("Both files are NOT the same!");
+            System.out.println("Both files are NOT the same! " + result.getDifferences() + " difference(s)"
+                    + (ordered ? " in order" : "") + ", first " + result.getFirstDifferences().size() + ":");
+            for (Difference difference : result.getFirstDifferences()) {
+                System.out.println("  " + difference);
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares the two files entry by entry, in order. Empty lines are skipped.
+     * When the words at the current entries differ, both files are searched LOOKAHEAD entries ahead for
+     * the other file's word, and the shorter run of entries in front of it is set aside, so that a missing,
+     * extra or moved line is one difference instead of shifting every later entry. An entry set aside is
+     * paired with the entry of the same word set aside from the other file, and reported as out of order
+     * with the counts and positions from both files. Entries still unpaired at the end are missing from
+     * one of the files. The differences are reported in the order they are found.
+     *
+     * @param expectedFilePath The file with the expected word counts.
+     * @param outputFilePath   The file to be checked.
+     * @param maxDiffs         The number of differences to keep for the report.
+     * @return The comparison result.
+     * @throws IOException If an error occurs during file I/O or a line is not of the form word:count.
+     */
+    public static Result compareOrdered(String expectedFilePath, String outputFilePath, int maxDiffs)
+            throws IOException {
+        if (maxDiffs < 0) {
+            throw new IllegalArgumentException("maxDiffs must not be negative: " + maxDiffs);
+        }
+        Report report = new Report(maxDiffs);
+        try (EntryReader expectedReader = new EntryReader(expectedFilePath);
+             EntryReader outputReader = new EntryReader(outputFilePath)) {
+            Window expected = new Window(expectedReader);
+            Window output = new Window(outputReader);
+            // Entries set aside, by word, until the other file's entry of the same word turns up
+            Map<String, Positioned> unpairedExpected = new HashMap<>();
+            Map<String, Positioned> unpairedOutput = new HashMap<>();
+            while (true) {
+                expected.fill();
+                output.fill();
+                Positioned e = expected.peek();
+                Positioned o = output.peek();
+                if (e == null && o == null) {
+                    break;
+                }
+                if (e != null && o != null && e.entry.word.equals(o.entry.word)) {
+                    expected.poll();
+                    output.poll();
+                    if (e.entry.count != o.entry.count) {
+                        report.add(new Difference(e.position, e.entry, o.position, o.entry, null));
+                    }
+                    continue;
+                }
+
+                int extra = e == null ? -1 : output.indexOf(e.entry.word, LOOKAHEAD);
+                int missing = o == null ? -1 : expected.indexOf(o.entry.word, extra < 0 ? LOOKAHEAD : extra);
+                if (missing > 0) {
+                    for (int i = 0; i < missing; i++) {
+                        setAside(expected.poll(), true, unpairedExpected, unpairedOutput, report);
+                    }
+                } else if (extra > 0) {
+                    for (int i = 0; i < extra; i++) {
+                        setAside(output.poll(), false, unpairedOutput, unpairedExpected, report);
+                    }
+                } else {
+                    // Neither word is close by in the other file
+                    if (e != null) {
+                        setAside(expected.poll(), true, unpairedExpected, unpairedOutput, report);
+                    }
+                    if (o != null) {
+                        setAside(output.poll(), false, unpairedOutput, unpairedExpected, report);
+                    }
+                }
+            }
+
+            List<Difference> leftOver = new ArrayList<>();
+            for (Positioned p : unpairedExpected.values()) {
+                leftOver.add(new Difference(p.position, p.entry, 0, null, null));
+            }
+            for (Positioned p : unpairedOutput.values()) {
+                leftOver.add(new Difference(0, null, p.position, p.entry, null));
+            }
+            leftOver.sort(Comparator.comparingLong(d -> Math.max(d.expectedPosition, d.actualPosition)));
+            for (Difference difference : leftOver) {
+                report.add(difference);
+            }
+        }
+        return report.toResult();
+    }
+
+    /**
+     * Sets an entry of one file aside. If the other file has an entry of the same word set aside, the two
+     * are reported as out of order. Otherwise the entry waits for its counterpart, and an entry of the
+     * same word already waiting on this side is reported as unpaired.
+     */
+    private static void setAside(Positioned entry, boolean isExpected, Map<String, Positioned> ownSide,
+                                 Map<String, Positioned> otherSide, Report report) {
+        Positioned counterpart = otherSide.remove(entry.entry.word);
+        if (counterpart != null) {
+            Positioned e = isExpected ? entry : counterpart;
+            Positioned o = isExpected ? counterpart : entry;
+            report.add(new Difference(e.position, e.entry, o.position, o.entry, "out of order"));
+            return;
+        }
+        Positioned previous = ownSide.put(entry.entry.word, entry);
+        if (previous != null) {
+            report.add(isExpected
+                    ? new Difference(previous.position, previous.entry, 0, null, null)
+                    : new Difference(0, null, previous.position, previous.entry, null));
+        }
+    }
+
+    /**
+     * Compares the word counts of the two files regardless of their order.
+     * Both files are read at the same time, and every entry is routed by the hash of its word to one of
+     * the partitions, which collect the counts of their words from both sides and compare them once
+     * both files have been read. The reported differences are the alphabetically first ones.
+     *
+     * @param expectedFilePath The file with the expected word counts.
+     * @param outputFilePath   The file to be checked.
+     * @param maxDiffs         The number of differences to keep for the report.
+     * @param partitions       The number of partitions compared in parallel.
+     * @return The comparison result.
+     * @throws IOException If an error occurs during file I/O or a line is not of the form word:count.
+     * @throws InterruptedException If interrupted while waiting for the comparison.
+     */
+    public static Result compareUnordered(String expectedFilePath, String outputFilePath, int maxDiffs,
+                                          int partitions) throws IOException, InterruptedException {
+        if (maxDiffs < 0) {
+            throw new IllegalArgumentException("maxDiffs must not be negative: " + maxDiffs);
+        }
+        List<BlockingQueue<Batch>> queues = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(partitions + 2);
+        try {
+            List<Future<Result>> partitionResults = new ArrayList<>();
+            for (BlockingQueue<Batch> queue : queues) {
+                partitionResults.add(pool.submit(() -> comparePartition(queue, maxDiffs)));
+            }
+            Future<?> expectedReader = pool.submit(() -> {
+                route(expectedFilePath, 0, queues);
+                return null;
+            });
+            Future<?> outputReader = pool.submit(() -> {
+                route(outputFilePath, 1, queues);
+                return null;
+            });
+            expectedReader.get();
+            outputReader.get();
+
+            long differences = 0;
+            List<Difference> firstDifferences = new ArrayList<>();
+            for (Future<Result> partitionResult : partitionResults) {
+                Result result = partitionResult.get();
+                differences += result.getDifferences();
+                firstDifferences.addAll(result.getFirstDifferences());
+            }
+            firstDifferences.sort(Comparator.comparing(Difference::getWord));
+            if (firstDifferences.size() > maxDiffs) {
+                firstDifferences = new ArrayList<>(firstDifferences.subList(0, maxDiffs));
+            }
+            return new Result(differences, firstDifferences);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Comparison failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads one file and sends its entries in batches to the partition of each word.
+     * Every partition receives an end marker afterwards, also if reading fails.
+     */
+    private static void route(String filePath, int side, List<BlockingQueue<Batch>> queues)
+            throws IOException, InterruptedException {
+        List<List<Entry>> pending = new ArrayList<>();
+        for (int i = 0; i < queues.size(); i++) {
+            pending.add(new ArrayList<>(BATCH_SIZE));
+        }
+        try (EntryReader reader = new EntryReader(filePath)) {
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                int partition = Math.floorMod(entry.word.hashCode(), queues.size());
+                List<Entry> batch = pending.get(partition);
+                batch.add(entry);
+                if (batch.size() == BATCH_SIZE) {
+                    queues.get(partition).put(new Batch(side, batch));
+                    pending.set(partition, new ArrayList<>(BATCH_SIZE));
+                }
+            }
+            for (int i = 0; i < queues.size(); i++) {
+                if (!pending.get(i).isEmpty()) {
+                    queues.get(i).put(new Batch(side, pending.get(i)));
+                }
+            }
+        } finally {
+            for (BlockingQueue<Batch> queue : queues) {
+                queue.put(new Batch(side, null));
+            }
+        }
+    }
+
+    /**
+     * Collects the counts of one partition from both files and compares them. A word that has more than
+     * one entry in a file is a difference as well; its counts are added up for the report.
+     */
+    private static Result comparePartition(BlockingQueue<Batch> queue, int maxDiffs) throws InterruptedException {
+        // Per word: the count on each side, then the number of entries on each side
+        Map<String, int[]> counts = new HashMap<>();
+        int finished = 0;
+        while (finished < 2) {
+            Batch batch = queue.take();
+            if (batch.entries == null) {
+                finished++;
+                continue;
+            }
+            for (Entry entry : batch.entries) {
+                int[] sides = counts.computeIfAbsent(entry.word, word -> new int[4]);
+                sides[batch.side] += entry.count;
+                sides[2 + batch.side]++;
+            }
+        }
+
+        long differences = 0;
+        // Keeps the alphabetically first maxDiffs differences, largest word on top
+        PriorityQueue<Difference> first = new PriorityQueue<>(Comparator.comparing(Difference::getWord).reversed());
+        for (Map.Entry<String, int[]> wordCounts : counts.entrySet()) {
+            int[] sides = wordCounts.getValue();
+            if (sides[0] != sides[1] || sides[2] != sides[3] || sides[2] > 1) {
+                differences++;
+                String word = wordCounts.getKey();
+                String note = null;
+                if (sides[2] > 1 || sides[3] > 1) {
+                    note = word + " has " + sides[2] + " expected and " + sides[3] + " found entries";
+                }
+                first.add(new Difference(
+                        sides[2] == 0 ? null : new Entry(word, sides[0]),
+                        sides[3] == 0 ? null : new Entry(word, sides[1]), note));
+                if (first.size() > maxDiffs) {
+                    first.poll();
+                }
+            }
+        }
+        return new Result(differences, new ArrayList<>(first));
+    }
+
+    /**
+     * Streams the word:count entries of a file, skipping empty lines.
+     */
+    private static class EntryReader implements AutoCloseable {
+        private final String filePath;
+        private final BufferedReader reader;
+        private long lineNumber = 0;
+
+        EntryReader(String filePath) throws IOException {
+            this.filePath = filePath;
+            this.reader = new BufferedReader(new FileReader(filePath), READ_BUFFER_SIZE);
+        }
+
+        Entry next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!line.isEmpty()) {
+                    return parse(line);
+                }
+            }
+            return null;
+        }
+
+        private Entry parse(String line) throws IOException {
+            int separator = line.lastIndexOf(':');
+            if (separator > 0) {
+                try {
+                    return new Entry(line.substring(0, separator).trim(),
+                            Integer.parseInt(line.substring(separator + 1).trim()));
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+            }
+            throw new IOException("Line " + lineNumber + " of " + filePath + " is not of the form word:count: " + line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * One word:count entry of an output file.
+     */
+    public static class Entry {
+        private final String word;
+        private final int count;
+
+        public Entry(String word, int count) {
+            this.word = word;
+            this.count = count;
+        }
+
+        public String getWord() {
+            return word;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return count == other.count && word.equals(other.word);
         }
 
-        bf1.close();
-        bf2.close();
+        @Override
+        public int hashCode() {
+            return Objects.hash(word, count);
+        }
+
+        @Override
+        public String toString() {
+            return word + ":" + count;
+        }
+    }
+
+    /**
+     * A difference between the two files. In an ordered comparison the positions are the numbers of the
+     * entries in their files, in an unordered one they are 0 and both entries belong to the same word.
+     * A missing entry is null, and note explains a difference that the two entries do not show,
+     * such as a repeated word or an entry out of order.
+     */
+    public static class Difference {
+        private final long expectedPosition;
+        private final Entry expected;
+        private final long actualPosition;
+        private final Entry actual;
+        private final String note;
+
+        public Difference(Entry expected, Entry actual, String note) {
+            this(0, expected, 0, actual, note);
+        }
+
+        public Difference(long expectedPosition, Entry expected, long actualPosition, Entry actual, String note) {
+            this.expectedPosition = expectedPosition;
+            this.expected = expected;
+            this.actualPosition = actualPosition;
+            this.actual = actual;
+            this.note = note;
+        }
+
+        public long getExpectedPosition() {
+            return expectedPosition;
+        }
+
+        public Entry getExpected() {
+            return expected;
+        }
+
+        public long getActualPosition() {
+            return actualPosition;
+        }
+
+        public Entry getActual() {
+            return actual;
+        }
+
+        public String getNote() {
+            return note;
+        }
+
+        public String getWord() {
+            return expected != null ? expected.word : actual.word;
+        }
+
+        @Override
+        public String toString() {
+            return "expected " + describe(expected, expectedPosition)
+                    + ", found " + describe(actual, actualPosition)
+                    + (note == null ? "" : " (" + note + ")");
+        }
+
+        private static String describe(Entry entry, long position) {
+            if (entry == null) {
+                return "<missing>";
+            }
+            return position > 0 ? entry + " at #" + position : entry.toString();
+        }
+    }
+
+    /**
+     * The outcome of a comparison: the total number of differences and the first ones found.
+     */
+    public static class Result {
+        private final long differences;
+        private final List<Difference> firstDifferences;
+
+        public Result(long differences, List<Difference> firstDifferences) {
+            this.differences = differences;
+            this.firstDifferences = Collections.unmodifiableList(firstDifferences);
+        }
+
+        public long getDifferences() {
+            return differences;
+        }
+
+        public List<Difference> getFirstDifferences() {
+            return firstDifferences;
+        }
+
+        public boolean isSame() {
+            return differences == 0;
+        }
+    }
+
+    /**
+     * Counts the differences and keeps the first maxDiffs of them.
+     */
+    private static class Report {
+        private final int maxDiffs;
+        private final List<Difference> first = new ArrayList<>();
+        private long differences = 0;
+
+        Report(int maxDiffs) {
+            this.maxDiffs = maxDiffs;
+        }
+
+        void add(Difference difference) {
+            differences++;
+            if (first.size() < maxDiffs) {
+                first.add(difference);
+            }
+        }
+
+        Result toResult() {
+            return new Result(differences, first);
+        }
+    }
+
+    /**
+     * An entry together with its number in the file.
+     */
+    private static class Positioned {
+        final long position;
+        final Entry entry;
+
+        Positioned(long position, Entry entry) {
+            this.position = position;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The next LOOKAHEAD entries of a file, with the number of entries per word so that a word that is
+     * not among them is ruled out without a scan.
+     */
+    private static class Window {
+        private final EntryReader reader;
+        private final ArrayDeque<Positioned> entries = new ArrayDeque<>();
+        private final Map<String, Integer> words = new HashMap<>();
+        private long position = 0;
+        private boolean exhausted = false;
+
+        Window(EntryReader reader) {
+            this.reader = reader;
+        }
+
+        void fill() throws IOException {
+            while (!exhausted && entries.size() < LOOKAHEAD) {
+                Entry entry = reader.next();
+                if (entry == null) {
+                    exhausted = true;
+                } else {
+                    entries.add(new Positioned(++position, entry));
+                    words.merge(entry.word, 1, Integer::sum);
+                }
+            }
+        }
+
+        Positioned peek() {
+            return entries.peek();
+        }
+
+        Positioned poll() {
+            Positioned next = entries.poll();
+            words.computeIfPresent(next.entry.word, (word, n) -> n == 1 ? null : n - 1);
+            return next;
+        }
+
+        /**
+         * Returns the index of the first entry of the given word among the next limit entries, or -1.
+         */
+        int indexOf(String word, int limit) {
+            if (!words.containsKey(word)) {
+                return -1;
+            }
+            int index = 0;
+            for (Positioned next : entries) {
+                if (index >= limit) {
+                    break;
+                }
+                if (next.entry.word.equals(word)) {
+                    return index;
+                }
+                index++;
+            }
+            return -1;
+        }
+    }
+
+    private static class Batch {
+        final int side;
+        final List<Entry> entries;
+
+        Batch(int side, List<Entry> entries) {
+            this.side = side;
+            this.entries = entries;
+        }
     }
 }
@@ -9,6 +9,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -127,4 +130,181 @@ class MapReduceTest {
         List<String> expected = Arrays.asList("world:10", "hello:5", "java:2");
         assertEquals(expected, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSplitPlan() {
+        SplitPlanner planner = new SplitPlanner(4, 0, 4_000_000, true);
+
+        // Small inputs never go below the minimum split size
+        assertEquals(SplitPlanner.MIN_SPLIT_SIZE, planner.splitSize(1000));
+        // Large inputs are spread over SPLITS_PER_WORKER splits per worker
+        assertEquals(1_000_000, planner.splitSize(16_000_000));
+        // Huge inputs are capped
+        assertEquals(SplitPlanner.MAX_SPLIT_SIZE, planner.splitSize(Long.MAX_VALUE / 2));
+
+        // The overhead is kept at MAX_OVERHEAD_RATIO of a split's map time: 1 ms at 4 MB/s needs 80 KB
+        SplitPlanner slowPlanner = new SplitPlanner(4, 1_000_000, 4_000_000, true);
+        assertEquals(80_000, slowPlanner.splitSize(16_000));
+        // A faster map needs larger splits to hide the same overhead
+        SplitPlanner fastPlanner = new SplitPlanner(4, 1_000_000, 8_000_000, true);
+        assertEquals(160_000, fastPlanner.splitSize(16_000));
+    }
+
+    @Test
+    public void testMeasureMapBytesPerSecond() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("throughputInput"));
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add("the quick brown fox jumps over the lazy dog " + i);
+        }
+        Files.write(inputDir.resolve("sample.txt"), lines);
+
+        assertTrue(SplitPlanner.measureMapBytesPerSecond(InputSource.of(inputDir.toString()), 0) > 0);
+        // Only the sample chunk is written, and it is removed again
+        try (Stream<Path> files = Files.list(inputDir)) {
+            assertEquals(1, files.count());
+        }
+
+        Path emptyDir = Files.createDirectory(tempDir.resolve("emptyInput"));
+        assertEquals(0, SplitPlanner.measureMapBytesPerSecond(InputSource.of(emptyDir.toString()), 0));
+    }
+
+    @Test
+    public void testMakeChunks() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("chunkInput"));
+        Files.write(inputDir.resolve("first.txt"), Arrays.asList("one two", "three four"));
+        Files.write(inputDir.resolve("second.txt"), Arrays.asList("five six"));
+        InputSource input = InputSource.of(inputDir.toString());
+
+        SplitPlan combined = new SplitPlanner(1, 0, 0, true).plan(input);
+        assertTrue(combined.isComplete());
+        AtomicInteger combinedChunks = new AtomicInteger();
+        String chunkDir = MapReduce.makeChunks(input, combined, tempDir.resolve("combinedChunks").toFile(),
+                chunkFile -> combinedChunks.incrementAndGet());
+        assertEquals(1, combinedChunks.get());
+        assertEquals(Set.of("one two", "three four", "five six"),
+                new HashSet<>(Files.readAllLines(Paths.get(chunkDir, "chunk001.txt"))));
+
+        // Without combining each file gets its own chunk
+        SplitPlan separate = new SplitPlanner(1, 0, 0, false).plan(input);
+        AtomicInteger separateChunks = new AtomicInteger();
+        String separateDir = MapReduce.makeChunks(input, separate, tempDir.resolve("separateChunks").toFile(),
+                chunkFile -> separateChunks.incrementAndGet());
+        assertEquals(2, separateChunks.get());
+        Set<List<String>> chunks = new HashSet<>();
+        try (Stream<Path> chunkFiles = Files.list(Paths.get(separateDir))) {
+            for (Path chunkFile : (Iterable<Path>) chunkFiles::iterator) {
+                chunks.add(Files.readAllLines(chunkFile));
+            }
+        }
+        assertEquals(Set.of(List.of("one two", "three four"), List.of("five six")), chunks);
+    }
+
+    @Test
+    public void testChunksArriveBeforeListingEnds() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("manyFiles"));
+        List<java.io.File> files = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            files.add(Files.write(inputDir.resolve("f" + i + ".txt"), List.of("word" + i)).toFile());
+        }
+
+        // Planning only looks at a sample of the files
+        AtomicInteger planned = new AtomicInteger();
+        SplitPlan plan = new SplitPlanner(1, 0, 0, false, 10).plan(counting(files, planned));
+        assertEquals(10, planned.get());
+        assertFalse(plan.isComplete());
+        assertEquals(10, plan.getFileCount());
+
+        // The first chunk is handed over while most files have not been listed yet
+        AtomicInteger listed = new AtomicInteger();
+        AtomicInteger listedAtFirstChunk = new AtomicInteger(-1);
+        AtomicInteger chunks = new AtomicInteger();
+        MapReduce.makeChunks(counting(files, listed), tempDir.resolve("manyChunks").toFile(), plan, 1, chunkFile -> {
+            listedAtFirstChunk.compareAndSet(-1, listed.get());
+            chunks.incrementAndGet();
+        });
+        assertTrue(listedAtFirstChunk.get() < files.size());
+        assertEquals(40, chunks.get());
+    }
+
+    @Test
+    public void testMakeChunksRethrowsCallbackFailure() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("failingCallback"));
+        List<java.io.File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(Files.write(inputDir.resolve("f" + i + ".txt"), List.of("word" + i)).toFile());
+        }
+        SplitPlan plan = new SplitPlanner(1, 0, 0, false).plan(files.iterator());
+
+        // Thrown on the ingestion pool threads, not only on the walking thread
+        assertThrows(IllegalStateException.class, () -> MapReduce.makeChunks(files.iterator(),
+                tempDir.resolve("failingChunks").toFile(), plan, 4, chunkFile -> {
+                    throw new IllegalStateException("map request rejected");
+                }));
+    }
+
+    @Test
+    public void testGlobIsSplitBeforeParsing() {
+        InputSource glob = InputSource.of("input" + java.io.File.separator + "logs" + java.io.File.separator + "*.l?g");
+        assertTrue(glob.getBaseDir().getPath().endsWith("logs"));
+        assertTrue(glob.toString().endsWith("*.l?g"));
+    }
+
+    @Test
+    public void testExistingFileIsNotAGlob() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("brackets"));
+        Path literal = Files.write(inputDir.resolve("data[1].txt"), List.of("one"));
+        Files.write(inputDir.resolve("data1.txt"), List.of("two"));
+
+        // data[1].txt would match data1.txt as a glob, but the file with exactly this name is meant
+        InputSource input = InputSource.of(literal.toString());
+        try (Stream<java.io.File> files = input.files()) {
+            assertEquals(List.of(literal.toFile()), files.collect(Collectors.toList()));
+        }
+    }
+
+    private static Iterator<java.io.File> counting(List<java.io.File> files, AtomicInteger handedOut) {
+        Iterator<java.io.File> iterator = files.iterator();
+        return new Iterator<java.io.File>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public java.io.File next() {
+                handedOut.incrementAndGet();
+                return iterator.next();
+            }
+        };
+    }
+
+    @Test
+    public void testMakeChunksFromDirectory() throws IOException {
+        Path inputDir = Files.createDirectory(tempDir.resolve("logs"));
+        for (int i = 0; i < 20; i++) {
+            Files.write(inputDir.resolve("log" + i + ".txt"), List.of("line " + i));
+        }
+        Files.write(inputDir.resolve("notes.md"), List.of("not a log"));
+
+        InputSource glob = InputSource.of(inputDir.resolve("*.txt").toString());
+        SplitPlan plan = new SplitPlanner(4, 0, 0, false).plan(glob);
+        assertEquals(20, plan.getFileCount());
+
+        // Every chunk is handed over as soon as it is written, and nothing is written into the input
+        Set<String> streamed = ConcurrentHashMap.newKeySet();
+        java.io.File workDir = tempDir.resolve("logChunks").toFile();
+        String chunkDir = MapReduce.makeChunks(glob, plan, workDir, chunkFile -> streamed.add(chunkFile.getName()));
+        assertEquals(workDir.getPath(), chunkDir);
+        try (Stream<Path> chunks = Files.list(Paths.get(chunkDir))) {
+            assertEquals(streamed, chunks.map(chunk -> chunk.getFileName().toString()).collect(Collectors.toSet()));
+        }
+        assertEquals(20, streamed.size());
+        try (Stream<Path> inputFiles = Files.list(inputDir)) {
+            assertEquals(21, inputFiles.count());
+        }
+
+        // A directory stands for all regular files in it
+        assertEquals(21, new SplitPlanner(1, 0, 0, true).plan(InputSource.of(inputDir.toString())).getFileCount());
+    }
+}
@@ -0,0 +1,105 @@
+package io.grpc.filesystem.test;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckOutputTest {
+
+    private static Path tempDir;
+    private static String expected;
+    private static String reordered;
+    private static String changed;
+
+    @BeforeAll
+    public static void createFiles() throws IOException {
+        tempDir = Files.createTempDirectory("checkoutput-test");
+        expected = Files.write(tempDir.resolve("expected.txt"), Arrays.asList("world:10", "hello:5", "java:2")).toString();
+        reordered = Files.write(tempDir.resolve("reordered.txt"), Arrays.asList("hello: 5", "", "java:2", "world:10")).toString();
+        changed = Files.write(tempDir.resolve("changed.txt"), Arrays.asList("world:10", "hello:4", "grpc:1")).toString();
+    }
+
+    @AfterAll
+    public static void deleteFiles() throws IOException {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCompareOrdered() throws IOException {
+        assertTrue(CheckOutput.compareOrdered(expected, expected, 10).isSame());
+
+        // One moved line is one difference, with its count and position in both files
+        CheckOutput.Result result = CheckOutput.compareOrdered(expected, reordered, 1);
+        assertEquals(1, result.getDifferences());
+        assertEquals(1, result.getFirstDifferences().size());
+        assertEquals("expected world:10 at #1, found world:10 at #3 (out of order)",
+                result.getFirstDifferences().get(0).toString());
+
+        CheckOutput.Result changedResult = CheckOutput.compareOrdered(expected, changed, 10);
+        assertEquals(3, changedResult.getDifferences());
+        assertEquals(Arrays.asList(
+                "expected hello:5 at #2, found hello:4 at #2",
+                "expected java:2 at #3, found <missing>",
+                "expected <missing>, found grpc:1 at #3"), describe(changedResult));
+    }
+
+    @Test
+    public void testCompareOrderedRealignsAfterShiftedLine() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add("word" + i + ":" + (5000 - i));
+        }
+        String expectedCounts = Files.write(tempDir.resolve("long.txt"), lines).toString();
+        List<String> shifted = new ArrayList<>(lines);
+        shifted.add(0, "extra:1");
+        shifted.remove(2500);
+        String shiftedCounts = Files.write(tempDir.resolve("shifted.txt"), shifted).toString();
+
+        CheckOutput.Result result = CheckOutput.compareOrdered(expectedCounts, shiftedCounts, 10);
+        assertEquals(Arrays.asList(
+                "expected <missing>, found extra:1 at #1",
+                "expected word2499:2501 at #2500, found <missing>"), describe(result));
+    }
+
+    private static List<String> describe(CheckOutput.Result result) {
+        List<String> differences = new ArrayList<>();
+        for (CheckOutput.Difference difference : result.getFirstDifferences()) {
+            differences.add(difference.toString());
+        }
+        return differences;
+    }
+
+    @Test
+    public void testCompareUnordered() throws IOException, InterruptedException {
+        assertTrue(CheckOutput.compareUnordered(expected, reordered, 10, 4).isSame());
+
+        CheckOutput.Result result = CheckOutput.compareUnordered(expected, changed, 10, 4);
+        assertEquals(3, result.getDifferences());
+        assertEquals(Arrays.asList(
+                "expected <missing>, found grpc:1",
+                "expected hello:5, found hello:4",
+                "expected java:2, found <missing>"), describe(result));
+    }
+
+    @Test
+    public void testCompareUnorderedReportsRepeatedWords() throws IOException, InterruptedException {
+        String expectedCounts = Files.write(tempDir.resolve("counts.txt"), Arrays.asList("a:1", "b:2")).toString();
+        String repeated = Files.write(tempDir.resolve("repeated.txt"), Arrays.asList("a:1", "a:1", "b:2")).toString();
+
+        CheckOutput.Result result = CheckOutput.compareUnordered(expectedCounts, repeated, 10, 4);
+        assertFalse(result.isSame());
+        assertEquals(1, result.getDifferences());
+        assertEquals("expected a:1, found a:2 (a has 1 expected and 2 found entries)",
+                result.getFirstDifferences().get(0).toString());
+    }
+}